@@ -0,0 +1,111 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Maps a package name to the title shown on the Pebble: the user's rename
+ * from pref_pkg_renames if there is one, otherwise the application label.
+ * Labels cost a round trip to the package manager, so they are cached until
+ * the package is installed, updated or removed, or the renames are reloaded.
+ * The renames and the titles cached from them are swapped as one, so a title
+ * worked out from the old renames can't end up cached alongside the new ones.
+ */
+public class AppTitleCache {
+    private final PackageManager    pm;
+    private volatile Titles         current = new Titles(Collections.<String, String> emptyMap());
+
+    private static final class Titles {
+        // lower case package name to title
+        final Map<String, String> renames;
+        final Map<String, String> titles = new ConcurrentHashMap<String, String>();
+
+        Titles(Map<String, String> renames) {
+            this.renames = renames;
+        }
+    }
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Map<String, String> titles = current.titles;
+            Uri data = intent.getData();
+            if (data == null) {
+                titles.clear();
+                return;
+            }
+            String packageName = data.getSchemeSpecificPart();
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "Package " + packageName + " changed, dropping its cached title");
+            }
+            if (packageName != null) {
+                titles.remove(packageName);
+            }
+        }
+    };
+
+    public AppTitleCache(PackageManager pm) {
+        this.pm = pm;
+    }
+
+    public void register(Context context) {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(packageReceiver, filter);
+    }
+
+    public void unregister(Context context) {
+        context.unregisterReceiver(packageReceiver);
+    }
+
+    /**
+     * Replaces the renames and drops every cached title.
+     * 
+     * @param renames
+     *            lower case package name to title
+     */
+    public void setRenames(Map<String, String> renames) {
+        current = new Titles(renames);
+    }
+
+    public String getTitle(String packageName) {
+        Titles snapshot = current;
+        String title = snapshot.titles.get(packageName);
+        if (title != null) {
+            return title;
+        }
+        title = snapshot.renames.get(packageName.toLowerCase(Locale.US));
+        if (title == null) {
+            try {
+                title = pm.getApplicationLabel(pm.getApplicationInfo(packageName, 0)).toString();
+            } catch (NameNotFoundException e) {
+                title = packageName;
+            }
+        }
+        snapshot.titles.put(packageName, title);
+        return title;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.dattasmoon.pebble.plugin.OutboundMessage.Priority;
+
+/**
+ * Merges a burst of notifications from one package into a single digest. The
+ * first notification from a package is sent straight away and opens a
+ * window; anything else the package posts during the window is held back and
+ * sent as one "App: N new messages" alert with the latest text when the
+ * window closes, or as soon as the maximum number have been held. A digest
+ * has the highest priority of the notifications in it.
+ * 
+ * Not thread safe: offer() has to be called on the looper that was passed in,
+ * which is also where the digests are sent from.
+ */
+public class BurstCoalescer implements Handler.Callback {
+    private static final int         MSG_FLUSH = 1;
+
+    private final Handler            handler;
+    private final Resources          resources;
+    private final Sink               sink;
+    // packages with an open window
+    private final Map<String, Burst> bursts    = new HashMap<String, Burst>();
+    private int                      merged    = 0;
+
+    public interface Sink {
+        void send(String packageName, String title, String text, Priority priority);
+    }
+
+    private static final class Burst {
+        final long opened;
+        int        held;
+        String     title;
+        String     text;
+        // the highest of the held notifications
+        Priority   priority;
+
+        Burst(long opened) {
+            this.opened = opened;
+        }
+    }
+
+    public BurstCoalescer(Looper looper, Resources resources, Sink sink) {
+        this.handler = new Handler(looper, this);
+        this.resources = resources;
+        this.sink = sink;
+    }
+
+    /**
+     * @param windowMillis
+     *            how long a burst lasts, 0 to send everything as it comes
+     * @param maxSize
+     *            how many notifications to hold back before sending a digest
+     *            early
+     */
+    public void offer(long windowMillis, int maxSize, String packageName, String title, String text,
+            Priority priority) {
+        if (windowMillis <= 0) {
+            sink.send(packageName, title, text, priority);
+            return;
+        }
+        Burst burst = bursts.get(packageName);
+        if (burst == null) {
+            bursts.put(packageName, new Burst(SystemClock.elapsedRealtime()));
+            handler.sendMessageDelayed(handler.obtainMessage(MSG_FLUSH, packageName), windowMillis);
+            sink.send(packageName, title, text, priority);
+            return;
+        }
+        burst.held++;
+        burst.title = title;
+        burst.text = text;
+        if (burst.priority == null || priority.compareTo(burst.priority) > 0) {
+            burst.priority = priority;
+        }
+        if (burst.held >= maxSize) {
+            flush(packageName, burst);
+        }
+    }
+
+    /**
+     * @return how many notifications were folded into a digest instead of
+     *         being sent on their own
+     */
+    public int getMergedCount() {
+        return merged;
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (msg.what != MSG_FLUSH) {
+            return false;
+        }
+        String packageName = (String) msg.obj;
+        Burst burst = bursts.remove(packageName);
+        if (burst != null) {
+            flush(packageName, burst);
+        }
+        return true;
+    }
+
+    private void flush(String packageName, Burst burst) {
+        if (burst.held == 0) {
+            return;
+        }
+        if (burst.held == 1) {
+            sink.send(packageName, burst.title, burst.text, burst.priority);
+        } else {
+            merged += burst.held - 1;
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "Sending " + burst.held + " notifications from " + packageName
+                        + " as one, " + (SystemClock.elapsedRealtime() - burst.opened) + "ms into the burst");
+            }
+            sink.send(packageName,
+                    resources.getQuantityString(R.plurals.digest_title, burst.held, burst.title, burst.held),
+                    burst.text, burst.priority);
+        }
+        burst.held = 0;
+        burst.title = null;
+        burst.text = null;
+        burst.priority = null;
+    }
+}
@@ -50,6 +50,18 @@ public final class Constants {
     public static final String  PREFERENCE_CONVERTS                   = "pref_converts";
     public static final String  PREFERENCE_IGNORE                     = "pref_ignore";
     public static final String  PREFERENCE_PKG_RENAMES                = "pref_pkg_renames";
+    public static final String  PREFERENCE_DEDUPE_WINDOW              = "pref_dedupe_window";
+    public static final String  PREFERENCE_RATE_LIMIT_BURST           = "pref_rate_limit_burst";
+    public static final String  PREFERENCE_RATE_LIMITS                = "pref_rate_limits";
+    public static final String  PREFERENCE_COALESCE_WINDOW            = "pref_coalesce_window";
+    public static final String  PREFERENCE_COALESCE_MAX               = "pref_coalesce_max";
+    public static final String  PREFERENCE_EXTRAS_MAX_DEPTH           = "pref_extras_max_depth";
+    public static final String  PREFERENCE_EXTRAS_MAX_CHARS           = "pref_extras_max_chars";
+    public static final String  PREFERENCE_EXTRAS_MAX_TIME            = "pref_extras_max_time";
+    public static final String  PREFERENCE_INBOX_SIZE                 = "pref_inbox_size";
+    public static final String  PREFERENCE_SEND_WINDOW                = "pref_send_window";
+    public static final String  PREFERENCE_QUEUE_SIZE                 = "pref_queue_size";
+    public static final String  PREFERENCE_OVERFLOW_POLICY            = "pref_overflow_policy";
 
     // Intents
     public static final String  INTENT_SEND_PEBBLE_NOTIFICATION       = "com.getpebble.action.SEND_NOTIFICATION";
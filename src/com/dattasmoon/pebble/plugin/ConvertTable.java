@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compiled form of the conversion list (pref_converts). All of the "from"
+ * strings go into one case folded trie so that converting a notification is a
+ * single left to right pass: at each position the longest matching "from" is
+ * replaced and scanning continues after it. When two conversions share the
+ * same "from", the first one wins, as it did when they were applied one after
+ * the other.
+ */
+public final class ConvertTable {
+    public static final ConvertTable EMPTY = fromJSON(new JSONArray());
+
+    private final FoldedTrie         trie;
+    // the replacement for a "from" that ends at the node, or null
+    private final String[]           replacements;
+    private final int                size;
+
+    private ConvertTable(List<String> from, List<String> to) {
+        FoldedTrie.Builder builder = new FoldedTrie.Builder();
+        int[] endNodes = new int[from.size()];
+        for (int i = 0; i < from.size(); i++) {
+            endNodes[i] = builder.add(from.get(i));
+        }
+        trie = builder.build();
+
+        replacements = new String[trie.size()];
+        int count = 0;
+        for (int i = 0; i < from.size(); i++) {
+            if (replacements[endNodes[i]] == null) {
+                replacements[endNodes[i]] = to.get(i);
+                count++;
+            }
+        }
+        size = count;
+    }
+
+    public static ConvertTable fromJSON(String json) {
+        try {
+            return fromJSON(new JSONArray(json));
+        } catch (JSONException e) {
+            return EMPTY;
+        }
+    }
+
+    public static ConvertTable fromJSON(JSONArray converts) {
+        List<String> from = new ArrayList<String>(converts.length());
+        List<String> to = new ArrayList<String>(converts.length());
+        for (int i = 0; i < converts.length(); i++) {
+            try {
+                JSONObject convert = converts.getJSONObject(i);
+                String f = convert.getString("from");
+                String t = convert.getString("to");
+                if (f.isEmpty()) {
+                    continue;
+                }
+                from.add(f);
+                to.add(t);
+            } catch (JSONException e) {
+                continue;
+            }
+        }
+        return new ConvertTable(from, to);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the converted text, or the same string if nothing matched
+     */
+    public String apply(String text) {
+        if (size == 0) {
+            return text;
+        }
+        StringBuilder out = null;
+        int copied = 0;
+        int pos = 0;
+        while (pos < text.length()) {
+            // find the longest "from" starting here
+            int node = 0;
+            int matchEnd = -1;
+            String replacement = null;
+            for (int i = pos; i < text.length(); i++) {
+                node = trie.step(node, FoldedTrie.fold(text.charAt(i)));
+                if (node < 0) {
+                    break;
+                }
+                if (replacements[node] != null) {
+                    matchEnd = i + 1;
+                    replacement = replacements[node];
+                }
+            }
+            if (matchEnd < 0) {
+                pos++;
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuilder(text.length() + 16);
+            }
+            out.append(text, copied, pos).append(replacement);
+            pos = matchEnd;
+            copied = matchEnd;
+        }
+        if (out == null) {
+            return text;
+        }
+        out.append(text, copied, text.length());
+        return out.toString();
+    }
+}
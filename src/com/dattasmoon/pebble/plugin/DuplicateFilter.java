@@ -0,0 +1,85 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.Map;
+
+/**
+ * Remembers recently sent notifications so that an app reposting the same one
+ * (progress updates, chat summaries) doesn't cost another trip to the Pebble.
+ * Only a 64 bit hash of the package, title and text is kept, along with when it
+ * was last seen, and only for the most recent few. A notification is only
+ * remembered once it is actually sent, see markSent(), so one that was held
+ * back for some other reason can still go out when it is posted again. A
+ * repeat within the window is suppressed and restarts the window.
+ * 
+ * Not thread safe, it is only used on the NotificationPipeline's thread.
+ */
+public class DuplicateFilter {
+    private static final int      CAPACITY   = 64;
+
+    // hash to when it was last seen, least recently seen first
+    private final Map<Long, Long> lastSeen   = new LruMap<Long, Long>(CAPACITY);
+    private int                   suppressed = 0;
+
+    /**
+     * @param windowMillis
+     *            how long a notification counts as a duplicate, 0 to turn
+     *            this off
+     * @return true if the same notification was sent within the window
+     */
+    public boolean isDuplicate(long windowMillis, String packageName, String title, String text, long now) {
+        if (windowMillis <= 0) {
+            return false;
+        }
+        Long key = Long.valueOf(hash(packageName, title, text));
+        Long previous = lastSeen.get(key);
+        if (previous != null && now - previous.longValue() < windowMillis) {
+            lastSeen.put(key, Long.valueOf(now));
+            suppressed++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remembers a notification that is going to the Pebble.
+     */
+    public void markSent(long windowMillis, String packageName, String title, String text, long now) {
+        if (windowMillis <= 0) {
+            return;
+        }
+        lastSeen.put(Long.valueOf(hash(packageName, title, text)), Long.valueOf(now));
+    }
+
+    public int getSuppressedCount() {
+        return suppressed;
+    }
+
+    // FNV-1a over the three strings, with a separator so that moving text
+    // from the title to the body doesn't give the same hash
+    private static long hash(String packageName, String title, String text) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, packageName);
+        h = hash(h, title);
+        h = hash(h, text);
+        return h;
+    }
+
+    private static long hash(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= 0xffff;
+        h *= 0x100000001b3L;
+        return h;
+    }
+}
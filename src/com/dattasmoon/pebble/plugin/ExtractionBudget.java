@@ -0,0 +1,42 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import android.content.SharedPreferences;
+
+/**
+ * Limits on how much work fetching the extras for one notification may do.
+ * A notification that goes over any of them is sent with just its own text.
+ */
+public final class ExtractionBudget {
+    // how many levels of nested views are looked at
+    public final int  maxDepth;
+    // how much text is collected
+    public final int  maxChars;
+    public final long maxMillis;
+
+    public ExtractionBudget(int maxDepth, int maxChars, long maxMillis) {
+        this.maxDepth = maxDepth;
+        this.maxChars = maxChars;
+        this.maxMillis = maxMillis;
+    }
+
+    public static ExtractionBudget fromPreferences(SharedPreferences sharedPref) {
+        int maxDepth = NotificationConfig.getIntString(sharedPref, Constants.PREFERENCE_EXTRAS_MAX_DEPTH, 16);
+        int maxChars = NotificationConfig.getIntString(sharedPref, Constants.PREFERENCE_EXTRAS_MAX_CHARS, 2000);
+        int maxMillis = NotificationConfig.getIntString(sharedPref, Constants.PREFERENCE_EXTRAS_MAX_TIME, 200);
+        return new ExtractionBudget(maxDepth, maxChars, maxMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + maxDepth + ", " + maxChars + " chars, " + maxMillis + "ms";
+    }
+}
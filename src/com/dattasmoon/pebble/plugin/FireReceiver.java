@@ -12,8 +12,6 @@ package com.dattasmoon.pebble.plugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -50,35 +48,27 @@ public class FireReceiver extends BroadcastReceiver {
 
                 // handle screen DND
                 boolean notifScreenOn = sharedPref.getBoolean(Constants.PREFERENCE_NOTIF_SCREEN_ON, true);
-                pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-                if (Constants.IS_LOGGABLE) {
-                    Log.d(Constants.LOG_TAG, "FireReceiver.onReceive: notifScreenOn=" + notifScreenOn + "  screen="
-                            + pm.isScreenOn());
-                }
-                if (!notifScreenOn && pm.isScreenOn()) {
-                    break;
+                // this receiver doesn't live long enough to track the screen
+                // with broadcasts, so only ask when the option is set
+                if (!notifScreenOn) {
+                    pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                    boolean screenOn = pm.isScreenOn();
+                    if (Constants.IS_LOGGABLE) {
+                        Log.d(Constants.LOG_TAG, "FireReceiver.onReceive: notifScreenOn=" + notifScreenOn + "  screen="
+                                + screenOn);
+                    }
+                    if (screenOn) {
+                        break;
+                    }
                 }
 
                 //handle quiet hours DND
-                boolean quiet_hours = sharedPref.getBoolean(Constants.PREFERENCE_QUIET_HOURS, false);
-                //we only need to pull this if quiet hours are enabled. Save the cycles for the cpu! (haha)
-                if(quiet_hours){
-                    String[] pieces = sharedPref.getString(Constants.PREFERENCE_QUIET_HOURS_BEFORE, "00:00").split(":");
-                    Date quiet_hours_before= new Date(0, 0, 0, Integer.parseInt(pieces[0]), Integer.parseInt(pieces[1]));
-                    pieces = sharedPref.getString(Constants.PREFERENCE_QUIET_HOURS_AFTER, "23:59").split(":");
-                    Date quiet_hours_after = new Date(0, 0, 0, Integer.parseInt(pieces[0]), Integer.parseInt(pieces[1]));
-                    Calendar c = Calendar.getInstance();
-                    Date now = new Date(0, 0, 0, c.get(Calendar.HOUR_OF_DAY), c.get(Calendar.MINUTE));
+                QuietHours quietHours = QuietHours.fromPreferences(sharedPref);
+                if (quietHours != null && quietHours.isQuiet()) {
                     if (Constants.IS_LOGGABLE) {
-                        Log.i(Constants.LOG_TAG, "Checking quiet hours. Now: " + now.toString() + " vs " +
-                                quiet_hours_before.toString() + " and " +quiet_hours_after.toString());
-                    }
-                    if(now.before(quiet_hours_before) || now.after(quiet_hours_after)){
-                        if (Constants.IS_LOGGABLE) {
-                            Log.i(Constants.LOG_TAG, "Time is before or after the quiet hours time. Returning.");
-                        }
-                        break;
+                        Log.i(Constants.LOG_TAG, "Time is during quiet time. Returning.");
                     }
+                    break;
                 }
 
                 String title = intent.getStringExtra(Constants.BUNDLE_EXTRA_STRING_TITLE);
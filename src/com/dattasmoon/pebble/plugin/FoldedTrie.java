@@ -0,0 +1,95 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A trie over case folded characters, shared by LiteralMatcher and
+ * ConvertTable. Strings are added to a Builder, which is then flattened into
+ * arrays; each node's transitions are sorted by character so following one is
+ * a binary search. Node 0 is the root.
+ */
+final class FoldedTrie {
+    final char[][] edgeChars;
+    final int[][]  edgeTargets;
+
+    static final class Builder {
+        private final List<TreeMap<Character, Integer>> nodes = new ArrayList<TreeMap<Character, Integer>>();
+
+        Builder() {
+            nodes.add(new TreeMap<Character, Integer>());
+        }
+
+        /**
+         * @return the node the folded string ends at
+         */
+        int add(String s) {
+            int node = 0;
+            for (int i = 0; i < s.length(); i++) {
+                Character c = Character.valueOf(fold(s.charAt(i)));
+                Integer next = nodes.get(node).get(c);
+                if (next == null) {
+                    next = Integer.valueOf(nodes.size());
+                    nodes.get(node).put(c, next);
+                    nodes.add(new TreeMap<Character, Integer>());
+                }
+                node = next.intValue();
+            }
+            return node;
+        }
+
+        FoldedTrie build() {
+            return new FoldedTrie(nodes);
+        }
+    }
+
+    private FoldedTrie(List<TreeMap<Character, Integer>> nodes) {
+        edgeChars = new char[nodes.size()][];
+        edgeTargets = new int[nodes.size()][];
+        for (int node = 0; node < nodes.size(); node++) {
+            TreeMap<Character, Integer> edges = nodes.get(node);
+            edgeChars[node] = new char[edges.size()];
+            edgeTargets[node] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[node][i] = edge.getKey().charValue();
+                edgeTargets[node][i] = edge.getValue().intValue();
+                i++;
+            }
+        }
+    }
+
+    int size() {
+        return edgeChars.length;
+    }
+
+    /**
+     * @param c
+     *            an already folded character
+     * @return the node reached from node by c, or -1 if there is none
+     */
+    int step(int node, char c) {
+        int i = Arrays.binarySearch(edgeChars[node], c);
+        return i < 0 ? -1 : edgeTargets[node][i];
+    }
+
+    /**
+     * Folds any letter, not just ASCII ones, since on Android "(?i)" always
+     * ignores Unicode case and "É" matched "é".
+     */
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Compiled form of the ignore list (pref_ignore). This is built once when the
+ * preferences are loaded so that handling an event only has to run the
+ * matchers instead of re-parsing the JSON and recompiling every pattern.
+ * 
+ * Rules are indexed by package: every package that has its own rules gets a
+ * bucket holding those rules merged with the rules for all apps, in their
+ * original order. Packages without rules of their own use the all apps
+ * bucket.
+ */
+public final class IgnoreRuleSet {
+    public static final String        ALL_APPS = "-1";
+    public static final IgnoreRuleSet EMPTY    = fromJSON(new JSONArray());
+
+    private final int                 size;
+    private final Bucket              allApps;
+    private final Map<String, Bucket> byPackage;
+
+    public static final class Rule {
+        // lower case package name, or ALL_APPS
+        public final String  app;
+        public final boolean exclude;
+        // null for plain text rules, which are run by a LiteralMatcher
+        public final Pattern pattern;
+        final String         literal;
+        final boolean        insensitive;
+        private final String description;
+
+        Rule(String app, boolean exclude, Pattern pattern, String literal, boolean insensitive, String description) {
+            this.app = app;
+            this.exclude = exclude;
+            this.pattern = pattern;
+            this.literal = literal;
+            this.insensitive = insensitive;
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * The rules that apply to one package, in evaluation order, along with a
+     * matcher for just the plain text ones among them.
+     */
+    private static final class Bucket {
+        final Rule[]         rules;
+        // index of each rule in the matcher, or -1 for raw regex rules
+        final int[]          literalIds;
+        final LiteralMatcher literals;
+
+        Bucket(List<Rule> list) {
+            rules = list.toArray(new Rule[list.size()]);
+            literalIds = new int[rules.length];
+            List<String> patterns = new ArrayList<String>();
+            List<Boolean> insensitive = new ArrayList<Boolean>();
+            for (int i = 0; i < rules.length; i++) {
+                if (rules[i].pattern != null) {
+                    literalIds[i] = -1;
+                } else {
+                    literalIds[i] = patterns.size();
+                    patterns.add(rules[i].literal);
+                    insensitive.add(Boolean.valueOf(rules[i].insensitive));
+                }
+            }
+            boolean[] flags = new boolean[insensitive.size()];
+            for (int i = 0; i < flags.length; i++) {
+                flags[i] = insensitive.get(i).booleanValue();
+            }
+            literals = new LiteralMatcher(patterns.toArray(new String[patterns.size()]), flags);
+        }
+
+        Rule findRejectingRule(String notificationText) {
+            // the plain text rules are all found in a single pass, the first
+            // time one of them is needed
+            boolean[] matched = null;
+            for (int i = 0; i < rules.length; i++) {
+                Rule rule = rules[i];
+                boolean found;
+                if (literalIds[i] < 0) {
+                    found = rule.pattern.matcher(notificationText).find();
+                } else {
+                    if (matched == null) {
+                        matched = new boolean[literals.size()];
+                        literals.match(notificationText, matched);
+                    }
+                    found = matched[literalIds[i]];
+                }
+                if (found == rule.exclude) {
+                    return rule;
+                }
+            }
+            return null;
+        }
+    }
+
+    private IgnoreRuleSet(List<Rule> rules) {
+        size = rules.size();
+        List<Rule> global = new ArrayList<Rule>();
+        Map<String, List<Rule>> grouped = new HashMap<String, List<Rule>>();
+        for (Rule rule : rules) {
+            if (rule.app.equals(ALL_APPS)) {
+                global.add(rule);
+                // the global rules go into every package's bucket at this
+                // point, which keeps the original ordering
+                for (List<Rule> list : grouped.values()) {
+                    list.add(rule);
+                }
+            } else {
+                List<Rule> list = grouped.get(rule.app);
+                if (list == null) {
+                    list = new ArrayList<Rule>(global);
+                    grouped.put(rule.app, list);
+                }
+                list.add(rule);
+            }
+        }
+        allApps = new Bucket(global);
+        byPackage = new HashMap<String, Bucket>();
+        for (Map.Entry<String, List<Rule>> entry : grouped.entrySet()) {
+            byPackage.put(entry.getKey(), new Bucket(entry.getValue()));
+        }
+    }
+
+    public static IgnoreRuleSet fromJSON(String json) {
+        try {
+            return fromJSON(new JSONArray(json));
+        } catch (JSONException e) {
+            return EMPTY;
+        }
+    }
+
+    public static IgnoreRuleSet fromJSON(JSONArray ignores) {
+        List<Rule> compiled = new ArrayList<Rule>(ignores.length());
+        for (int i = 0; i < ignores.length(); i++) {
+            try {
+                JSONObject ignore = ignores.getJSONObject(i);
+                String app = ignore.getString("app");
+                boolean exclude = ignore.optBoolean("exclude", true);
+                boolean case_insensitive = ignore.optBoolean("insensitive", true);
+                boolean raw = ignore.getBoolean("raw");
+                String match = ignore.getString("match");
+                if (!app.equals(ALL_APPS)) {
+                    app = app.toLowerCase(Locale.US);
+                }
+                String regex = "";
+                if (case_insensitive) {
+                    regex += "(?i)";
+                }
+                if (!raw) {
+                    regex += Pattern.quote(match);
+                    compiled.add(new Rule(app, exclude, null, match, case_insensitive, regex));
+                } else {
+                    regex += match;
+                    compiled.add(new Rule(app, exclude, Pattern.compile(regex), null, case_insensitive, regex));
+                }
+            } catch (JSONException e) {
+                continue;
+            } catch (PatternSyntaxException e) {
+                if (Constants.IS_LOGGABLE) {
+                    Log.i(Constants.LOG_TAG, "Skipping ignore rule with invalid regex: " + e.getPattern());
+                }
+                continue;
+            }
+        }
+        return new IgnoreRuleSet(compiled);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Runs the rules that apply to the package, in order, against the
+     * notification text.
+     * 
+     * @return the rule that rejects the notification, or null if it should be
+     *         sent
+     */
+    public Rule findRejectingRule(String packageName, String notificationText) {
+        Bucket bucket = byPackage.get(packageName.toLowerCase(Locale.US));
+        if (bucket == null) {
+            bucket = allApps;
+        }
+        return bucket.findRejectingRule(notificationText);
+    }
+}
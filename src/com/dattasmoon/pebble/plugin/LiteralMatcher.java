@@ -0,0 +1,152 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a set of plain text patterns. The automaton is
+ * built on case folded characters so one pass over the text finds every
+ * pattern; patterns that are case sensitive are confirmed against the original
+ * text when they hit. Case is folded per character for all of Unicode, as
+ * Android's "(?i)" does.
+ */
+public final class LiteralMatcher {
+    private final String[]    patterns;
+    private final boolean[]   insensitive;
+
+    private final FoldedTrie  trie;
+    private final int[]       fail;
+    // pattern ids that end at a node, including those reached via fail links
+    private final int[][]     outputs;
+    private final int[]       emptyPatterns;
+
+    public LiteralMatcher(String[] patterns, boolean[] insensitive) {
+        this.patterns = patterns;
+        this.insensitive = insensitive;
+
+        FoldedTrie.Builder builder = new FoldedTrie.Builder();
+        int[] endNodes = new int[patterns.length];
+        List<Integer> empty = new ArrayList<Integer>();
+        for (int id = 0; id < patterns.length; id++) {
+            if (patterns[id].isEmpty()) {
+                // an empty pattern matches any text
+                empty.add(Integer.valueOf(id));
+                endNodes[id] = -1;
+            } else {
+                endNodes[id] = builder.add(patterns[id]);
+            }
+        }
+        trie = builder.build();
+
+        int size = trie.size();
+        List<List<Integer>> ends = new ArrayList<List<Integer>>(size);
+        for (int node = 0; node < size; node++) {
+            ends.add(new ArrayList<Integer>());
+        }
+        for (int id = 0; id < patterns.length; id++) {
+            if (endNodes[id] >= 0) {
+                ends.get(endNodes[id]).add(Integer.valueOf(id));
+            }
+        }
+
+        // breadth first so that a node's fail target is finished before it
+        fail = new int[size];
+        outputs = new int[size][];
+        outputs[0] = toArray(ends.get(0));
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < trie.edgeTargets[0].length; i++) {
+            int child = trie.edgeTargets[0][i];
+            fail[child] = 0;
+            outputs[child] = toArray(ends.get(child));
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = 0; i < trie.edgeChars[node].length; i++) {
+                char c = trie.edgeChars[node][i];
+                int child = trie.edgeTargets[node][i];
+                int f = fail[node];
+                while (f != 0 && trie.step(f, c) < 0) {
+                    f = fail[f];
+                }
+                int target = trie.step(f, c);
+                fail[child] = target < 0 ? 0 : target;
+
+                int[] own = toArray(ends.get(child));
+                int[] inherited = outputs[fail[child]];
+                int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+                System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+                outputs[child] = merged;
+                queue[tail++] = child;
+            }
+        }
+        emptyPatterns = toArray(empty);
+    }
+
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * Scans the text once, setting matched[id] for every pattern that occurs
+     * in it.
+     *
+     * @return the number of distinct patterns found
+     */
+    public int match(CharSequence text, boolean[] matched) {
+        int found = 0;
+        for (int id : emptyPatterns) {
+            matched[id] = true;
+            found++;
+        }
+        int node = 0;
+        for (int pos = 0; pos < text.length() && found < patterns.length; pos++) {
+            char c = FoldedTrie.fold(text.charAt(pos));
+            int next = trie.step(node, c);
+            while (next < 0 && node != 0) {
+                node = fail[node];
+                next = trie.step(node, c);
+            }
+            node = next < 0 ? 0 : next;
+            for (int id : outputs[node]) {
+                if (matched[id]) {
+                    continue;
+                }
+                if (insensitive[id] || regionMatches(text, pos + 1 - patterns[id].length(), patterns[id])) {
+                    matched[id] = true;
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (text.charAt(start + i) != pattern.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i).intValue();
+        }
+        return array;
+    }
+}
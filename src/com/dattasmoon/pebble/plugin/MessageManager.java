@@ -0,0 +1,362 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.dattasmoon.pebble.plugin.OutboundQueue.OverflowPolicy;
+import com.getpebble.android.kit.PebbleKit;
+
+/**
+ * Sends the queued alerts to the watchapp, highest priority first (see
+ * OutboundQueue). Each send gets its own transaction
+ * id, and up to the window size of them may be waiting for an ack at once.
+ * Acks and nacks are matched to their message by that id, so an ack that
+ * arrives late, or for some other sender, can't remove the wrong message. A
+ * message that is nacked, or isn't acked within ACK_TIMEOUT, is sent again
+ * after an exponential backoff, ahead of anything queued after it, and is
+ * dropped after MAX_ATTEMPTS tries.
+ * 
+ * The watchapp is only launched when it isn't believed to be running. It is
+ * taken to be running once it has been launched, or has acked or sent us
+ * something, and not running after the Pebble connects or disconnects, or a
+ * message to it is nacked or times out, so the retry launches it again.
+ * 
+ * All of the sending and ack handling happens on the manager's own thread,
+ * which is a small state machine. It is IDLE with nothing to do. It is
+ * SENDING while there are messages queued and room in the window, sending one
+ * per turn of the looper so acks are handled in between. It is AWAITING_ACK
+ * when the window is full or nothing else is queued. It is BACKOFF while a
+ * retry waits out its delay, and nothing new is sent until the retry has gone,
+ * since the watch has just refused or missed a message. offer() and the notify
+ * methods can be called from anywhere; they only post a pooled looper message,
+ * and offers made while a send is already posted share it, so nothing is
+ * allocated per message.
+ */
+public class MessageManager implements Handler.Callback {
+    public enum State {
+        IDLE, SENDING, AWAITING_ACK, BACKOFF
+    }
+
+    // transaction ids are a single byte
+    private static final int                   TRANSACTION_IDS   = 256;
+    private static final long                  ACK_TIMEOUT       = 10000;
+    private static final long                  BACKOFF_BASE      = 1000;
+    private static final long                  BACKOFF_MAX       = 30000;
+    private static final int                   MAX_ATTEMPTS      = 5;
+
+    private static final int                   MSG_ACK_TIMEOUT   = 1;
+    private static final int                   MSG_RETRY         = 2;
+    private static final int                   MSG_SEND          = 3;
+    private static final int                   MSG_ACK           = 4;
+    private static final int                   MSG_NACK          = 5;
+
+    private final Context                      context;
+    private final UUID                         appUuid;
+    // the real limits come with the config
+    private final OutboundQueue                messageQueue      = new OutboundQueue(16, OverflowPolicy.DROP_OLDEST);
+    private volatile int                       windowSize        = 1;
+    private HandlerThread                      thread;
+    private Handler                            messageHandler;
+    // set while a MSG_SEND is queued, so offers don't post one each
+    private final AtomicBoolean                sendPosted        = new AtomicBoolean(false);
+
+    // only touched on the message thread
+    private final SparseArray<OutboundMessage> inFlight          = new SparseArray<OutboundMessage>();
+    private int                                nextTransactionId = 0;
+    // retries waiting out their backoff
+    private int                                backingOff        = 0;
+
+    // only written on the message thread
+    private volatile State                     state             = State.IDLE;
+    private volatile int                       timeouts          = 0;
+    private volatile int                       retries           = 0;
+    private volatile int                       dropped           = 0;
+    private volatile int                       launches          = 0;
+
+    // whether the watchapp is believed to be running
+    private volatile boolean                   appRunning        = false;
+
+    public MessageManager(Context context, UUID appUuid) {
+        this.context = context.getApplicationContext();
+        this.appUuid = appUuid;
+    }
+
+    public void start() {
+        thread = new HandlerThread("MessageManager");
+        thread.start();
+        messageHandler = new Handler(thread.getLooper(), this);
+    }
+
+    public void stop() {
+        if (thread != null) {
+            thread.quit();
+        }
+    }
+
+    /**
+     * Picks up the window size and queue limits from a new config.
+     */
+    public void configure(NotificationConfig config) {
+        this.windowSize = Math.max(1, Math.min(config.sendWindow, TRANSACTION_IDS));
+        messageQueue.setLimits(config.queueSize, config.overflowPolicy);
+        postSend();
+    }
+
+    private void postSend() {
+        if (messageHandler != null && sendPosted.compareAndSet(false, true)) {
+            messageHandler.sendEmptyMessage(MSG_SEND);
+        }
+    }
+
+    /**
+     * Sends the next queued message, if the window has room for it.
+     */
+    private void sendNext() {
+        if (inFlight.size() >= windowSize) {
+            return;
+        }
+        OutboundMessage pending = messageQueue.poll();
+        if (pending == null) {
+            return;
+        }
+        int transactionId = allocateTransactionId();
+        pending.attempts++;
+        // Send the alert to Pebble
+        if (Constants.IS_LOGGABLE) {
+            Log.d(Constants.LOG_TAG, "About to send an Alertify msg to Pebble, transaction " + transactionId
+                    + ", attempt " + pending.attempts + ", " + inFlight.size() + " already waiting for an ack");
+        }
+
+        // Wake the Alertify app, if it needs it
+        if (!appRunning) {
+            PebbleKit.startAppOnPebble(context, appUuid);
+            appRunning = true;
+            launches++;
+        }
+
+        // Send it
+        PebbleKit.sendDataToPebbleWithTransactionId(context, appUuid, pending.data, transactionId);
+        inFlight.put(transactionId, pending);
+        messageHandler.sendMessageDelayed(messageHandler.obtainMessage(MSG_ACK_TIMEOUT, transactionId, 0,
+                pending), ACK_TIMEOUT);
+    }
+
+    /**
+     * Moves to the state called for by what is waiting. Entering or staying in
+     * SENDING posts another MSG_SEND.
+     */
+    private void advance() {
+        State next;
+        if (backingOff > 0) {
+            next = State.BACKOFF;
+        } else if (inFlight.size() < windowSize && messageQueue.size() > 0) {
+            next = State.SENDING;
+        } else if (inFlight.size() > 0) {
+            next = State.AWAITING_ACK;
+        } else {
+            next = State.IDLE;
+        }
+        setState(next);
+        if (next == State.SENDING) {
+            postSend();
+        }
+    }
+
+    private void setState(State newState) {
+        if (state == newState) {
+            return;
+        }
+        if (Constants.IS_LOGGABLE) {
+            Log.d(Constants.LOG_TAG, "MessageManager " + state + " -> " + newState);
+        }
+        state = newState;
+    }
+
+    private int allocateTransactionId() {
+        int transactionId = nextTransactionId;
+        // the window is never bigger than the id space, so there is always a
+        // free one
+        while (inFlight.get(transactionId) != null) {
+            transactionId = (transactionId + 1) % TRANSACTION_IDS;
+        }
+        nextTransactionId = (transactionId + 1) % TRANSACTION_IDS;
+        return transactionId;
+    }
+
+    public void notifyAckReceivedAsync(int transactionId) {
+        messageHandler.obtainMessage(MSG_ACK, transactionId, 0).sendToTarget();
+    }
+
+    public void notifyNackReceivedAsync(int transactionId) {
+        messageHandler.obtainMessage(MSG_NACK, transactionId, 0).sendToTarget();
+    }
+
+    /**
+     * @return the message in flight under the transaction id, taken out of the
+     *         window, or null if there isn't one
+     */
+    private OutboundMessage complete(int transactionId, String what) {
+        OutboundMessage pending = inFlight.get(transactionId);
+        if (pending == null) {
+            if (Constants.IS_LOGGABLE) {
+                Log.w(Constants.LOG_TAG, "Ignoring " + what + " for transaction " + transactionId
+                        + ", which isn't waiting for one");
+            }
+            return null;
+        }
+        inFlight.remove(transactionId);
+        messageHandler.removeMessages(MSG_ACK_TIMEOUT, pending);
+        return pending;
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        OutboundMessage pending;
+        switch (msg.what) {
+        case MSG_SEND:
+            sendPosted.set(false);
+            // nothing new goes out while a retry is waiting, it goes first
+            if (state != State.BACKOFF) {
+                sendNext();
+            }
+            advance();
+            return true;
+        case MSG_ACK:
+            if (complete(msg.arg1, "an ack") != null) {
+                appRunning = true;
+                advance();
+            }
+            return true;
+        case MSG_NACK:
+            pending = complete(msg.arg1, "a nack");
+            if (pending != null) {
+                // the watchapp may have been closed, launch it again
+                appRunning = false;
+                retryLater(pending);
+                advance();
+            }
+            return true;
+        case MSG_ACK_TIMEOUT:
+            pending = (OutboundMessage) msg.obj;
+            // the id may have been reused since, so check it is still ours
+            if (inFlight.get(msg.arg1) != pending) {
+                return true;
+            }
+            inFlight.remove(msg.arg1);
+            appRunning = false;
+            timeouts++;
+            if (Constants.IS_LOGGABLE) {
+                Log.w(Constants.LOG_TAG, "No ack for transaction " + msg.arg1 + " after " + ACK_TIMEOUT + "ms ("
+                        + timeouts + " timeouts so far)");
+            }
+            retryLater(pending);
+            advance();
+            return true;
+        case MSG_RETRY:
+            pending = (OutboundMessage) msg.obj;
+            backingOff--;
+            // try it again before anything that came after it
+            messageQueue.offerFirst(pending);
+            advance();
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Sends the message again after a backoff that doubles with each attempt,
+     * or drops it once it has had MAX_ATTEMPTS.
+     */
+    private void retryLater(OutboundMessage pending) {
+        if (pending.attempts >= MAX_ATTEMPTS) {
+            dropped++;
+            if (Constants.IS_LOGGABLE) {
+                Log.w(Constants.LOG_TAG, "Giving up on a message after " + pending.attempts + " attempts (" + dropped
+                        + " dropped so far)");
+            }
+            return;
+        }
+        retries++;
+        backingOff++;
+        long backoff = Math.min(BACKOFF_MAX, BACKOFF_BASE << (pending.attempts - 1));
+        if (Constants.IS_LOGGABLE) {
+            Log.i(Constants.LOG_TAG, "Retrying a message in " + backoff + "ms (" + retries + " retries so far)");
+        }
+        messageHandler.sendMessageDelayed(messageHandler.obtainMessage(MSG_RETRY, pending), backoff);
+    }
+
+    /**
+     * Call when the watchapp sends us data, which means it is running.
+     */
+    public void notifyAppRunning() {
+        appRunning = true;
+    }
+
+    /**
+     * Call when the Pebble connects or disconnects, after which the watchapp
+     * can't be running until it is launched again.
+     */
+    public void notifyConnectionChanged() {
+        appRunning = false;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return how many times the watchapp was launched
+     */
+    public int getLaunchCount() {
+        return launches;
+    }
+
+    public int getTimeoutCount() {
+        return timeouts;
+    }
+
+    public int getRetryCount() {
+        return retries;
+    }
+
+    /**
+     * @return how many messages were given up on after MAX_ATTEMPTS
+     */
+    public int getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return how many messages were dropped because the queue was full
+     */
+    public int getOverflowCount() {
+        return messageQueue.getDroppedCount();
+    }
+
+    public boolean offer(OutboundMessage message) {
+        boolean success = messageQueue.offer(message);
+
+        if (success) {
+            postSend();
+        }
+
+        return success;
+    }
+}
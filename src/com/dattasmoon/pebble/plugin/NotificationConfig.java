@@ -0,0 +1,179 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.SharedPreferences;
+
+import com.dattasmoon.pebble.plugin.Constants.Mode;
+import com.dattasmoon.pebble.plugin.OutboundQueue.OverflowPolicy;
+
+/**
+ * Everything the NotificationService needs from the preferences, parsed and
+ * compiled up front. A config is never changed once it is built; a reload
+ * builds a new one and swaps it in, so an event always sees one consistent
+ * set of settings.
+ */
+public final class NotificationConfig {
+    public final Mode                mode;
+    public final boolean             notificationsOnly;
+    public final boolean             noOngoingNotifs;
+    public final boolean             notificationExtras;
+    public final ExtractionBudget    extrasBudget;
+    public final boolean             notifScreenOn;
+    // null when quiet time is turned off
+    public final QuietHours          quietHours;
+    // lower case package names
+    public final Set<String>         packages;
+    public final ConvertTable        converts;
+    public final IgnoreRuleSet       ignores;
+    // lower case package name to title
+    public final Map<String, String> renames;
+    // 0 when duplicates are sent
+    public final long                dedupeWindowMillis;
+    // 0 when apps aren't rate limited unless they have their own limit
+    public final long                minWaitMillis;
+    public final int                 rateLimitBurst;
+    // lower case package name to its own wait
+    public final Map<String, Long>   rateLimits;
+    // 0 when bursts aren't merged
+    public final long                coalesceWindowMillis;
+    public final int                 coalesceMax;
+    public final PayloadBudget       payloadBudget;
+    // how many messages may be waiting for an ack at once
+    public final int                 sendWindow;
+    // how many messages may wait to be sent
+    public final int                 queueSize;
+    public final OverflowPolicy      overflowPolicy;
+
+    private NotificationConfig(SharedPreferences sharedPref) {
+        mode = Mode.values()[sharedPref.getInt(Constants.PREFERENCE_MODE, Mode.OFF.ordinal())];
+        packages = parsePackageList(sharedPref.getString(Constants.PREFERENCE_PACKAGE_LIST, ""));
+        notificationsOnly = sharedPref.getBoolean(Constants.PREFERENCE_NOTIFICATIONS_ONLY, true);
+        noOngoingNotifs = sharedPref.getBoolean(Constants.PREFERENCE_NO_ONGOING_NOTIF, false);
+        notificationExtras = sharedPref.getBoolean(Constants.PREFERENCE_NOTIFICATION_EXTRA, false);
+        extrasBudget = ExtractionBudget.fromPreferences(sharedPref);
+        notifScreenOn = sharedPref.getBoolean(Constants.PREFERENCE_NOTIF_SCREEN_ON, true);
+        quietHours = QuietHours.fromPreferences(sharedPref);
+        converts = ConvertTable.fromJSON(sharedPref.getString(Constants.PREFERENCE_CONVERTS, "[]"));
+        ignores = IgnoreRuleSet.fromJSON(sharedPref.getString(Constants.PREFERENCE_IGNORE, "[]"));
+        renames = parseRenames(sharedPref.getString(Constants.PREFERENCE_PKG_RENAMES, "[]"));
+        dedupeWindowMillis = getIntString(sharedPref, Constants.PREFERENCE_DEDUPE_WINDOW, 0) * 1000L;
+        minWaitMillis = getIntString(sharedPref, Constants.PREFERENCE_MIN_NOTIFICATION_WAIT, 0) * 1000L;
+        rateLimitBurst = Math.max(1, getIntString(sharedPref, Constants.PREFERENCE_RATE_LIMIT_BURST, 3));
+        rateLimits = parseRateLimits(sharedPref.getString(Constants.PREFERENCE_RATE_LIMITS, "[]"));
+        coalesceWindowMillis = getIntString(sharedPref, Constants.PREFERENCE_COALESCE_WINDOW, 0) * 1000L;
+        coalesceMax = Math.max(1, getIntString(sharedPref, Constants.PREFERENCE_COALESCE_MAX, 10));
+        payloadBudget = new PayloadBudget(getIntString(sharedPref, Constants.PREFERENCE_INBOX_SIZE,
+                PayloadBudget.DEFAULT_INBOX_SIZE));
+        sendWindow = Math.max(1, getIntString(sharedPref, Constants.PREFERENCE_SEND_WINDOW, 1));
+        queueSize = Math.max(1, getIntString(sharedPref, Constants.PREFERENCE_QUEUE_SIZE, 16));
+        overflowPolicy = parseOverflowPolicy(sharedPref.getString(Constants.PREFERENCE_OVERFLOW_POLICY,
+                OverflowPolicy.DROP_OLDEST.name()));
+    }
+
+    public static NotificationConfig fromPreferences(SharedPreferences sharedPref) {
+        return new NotificationConfig(sharedPref);
+    }
+
+    /**
+     * Turns the comma separated package list into a set of lower case package
+     * names, dropping empty entries such as the one "".split(",") gives.
+     */
+    private static Set<String> parsePackageList(String packageList) {
+        Set<String> set = new HashSet<String>();
+        for (String packageName : packageList.split(",")) {
+            packageName = packageName.trim();
+            if (!packageName.isEmpty()) {
+                set.add(packageName.toLowerCase(Locale.US));
+            }
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * @return how long the package has to wait between notifications once it
+     *         has used up its burst, 0 for no limit
+     */
+    public long getMinWaitMillis(String packageName) {
+        Long wait = rateLimits.get(packageName.toLowerCase(Locale.US));
+        return wait == null ? minWaitMillis : wait.longValue();
+    }
+
+    /**
+     * Reads an int that a ListPreference or EditTextPreference has stored as a
+     * string.
+     */
+    static int getIntString(SharedPreferences sharedPref, String key, int defValue) {
+        try {
+            return Integer.parseInt(sharedPref.getString(key, String.valueOf(defValue)).trim());
+        } catch (NumberFormatException e) {
+            return defValue;
+        } catch (ClassCastException e) {
+            return defValue;
+        }
+    }
+
+    private static OverflowPolicy parseOverflowPolicy(String name) {
+        try {
+            return OverflowPolicy.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return OverflowPolicy.DROP_OLDEST;
+        }
+    }
+
+    private static Map<String, String> parseRenames(String json) {
+        Map<String, String> map = new HashMap<String, String>();
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                try {
+                    JSONObject rename = array.getJSONObject(i);
+                    // later entries win, as they always have
+                    map.put(rename.getString("pkg").toLowerCase(Locale.US), rename.getString("to"));
+                } catch (JSONException e) {
+                    continue;
+                }
+            }
+        } catch (JSONException e) {
+            map.clear();
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static Map<String, Long> parseRateLimits(String json) {
+        Map<String, Long> map = new HashMap<String, Long>();
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                try {
+                    JSONObject limit = array.getJSONObject(i);
+                    map.put(limit.getString("pkg").trim().toLowerCase(Locale.US),
+                            Long.valueOf(Math.max(0, limit.getInt("wait")) * 1000L));
+                } catch (JSONException e) {
+                    continue;
+                }
+            }
+        } catch (JSONException e) {
+            map.clear();
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.List;
+
+import android.app.Notification;
+import android.os.Parcelable;
+import android.view.accessibility.AccessibilityEvent;
+
+/**
+ * The parts of an AccessibilityEvent that the NotificationPipeline needs. The
+ * event itself is recycled once onAccessibilityEvent returns, so everything is
+ * copied out of it on the callback and the rest of the work happens on the
+ * pipeline's thread.
+ */
+public final class NotificationEvent {
+    public final String       packageName;
+    // trimmed
+    public final String       text;
+    // null if the event wasn't for a notification
+    public final Notification notification;
+    public final long         capturedNanos;
+
+    private NotificationEvent(String packageName, String text, Notification notification) {
+        this.packageName = packageName;
+        this.text = text;
+        this.notification = notification;
+        this.capturedNanos = System.nanoTime();
+    }
+
+    /**
+     * @param scratch
+     *            a builder to assemble the text in, reused from one event to
+     *            the next
+     */
+    public static NotificationEvent capture(AccessibilityEvent event, StringBuilder scratch) {
+        String packageName;
+        if (event.getPackageName() != null) {
+            packageName = event.getPackageName().toString();
+        } else {
+            packageName = "";
+        }
+
+        // get the notification text
+        String text = joinText(event.getText(), scratch);
+
+        Parcelable parcelable = event.getParcelableData();
+        Notification notification = null;
+        if (parcelable instanceof Notification) {
+            notification = (Notification) parcelable;
+        }
+        return new NotificationEvent(packageName, text, notification);
+    }
+
+    /**
+     * Joins the text the way List.toString() does, without the brackets
+     * around it, and trims the result. The parts are copied straight into the
+     * builder so the only string made is the one returned.
+     */
+    static String joinText(List<CharSequence> parts, StringBuilder scratch) {
+        scratch.setLength(0);
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                scratch.append(", ");
+            }
+            // a null part comes out as "null", as it does in toString()
+            scratch.append(parts.get(i));
+        }
+        int start = 0;
+        int end = scratch.length();
+        while (start < end && scratch.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && scratch.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return scratch.substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationEvent[" + packageName + ", " + text + "]";
+    }
+}
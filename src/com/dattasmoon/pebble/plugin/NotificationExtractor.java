@@ -0,0 +1,398 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.app.Notification;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.RemoteViews;
+import android.widget.TextView;
+
+/**
+ * Pulls the extra text out of a notification, for the "fetch detailed
+ * notifications" option.
+ * 
+ * From KitKat on, most notifications carry their text in Notification.extras,
+ * and that is used whenever it has any. Otherwise, on older devices and for
+ * custom layouts, the notification's views are inflated and searched for
+ * text.
+ * 
+ * Inflating a layout is by far the most expensive part of this, and most
+ * notifications use one of a handful of layouts, so inflated layouts are kept
+ * per package and layout id and the RemoteViews are reapplied to them. Before
+ * a layout is reused its TextViews are put back to the text they were
+ * inflated with, so nothing from the last notification that used it shows
+ * up in this one. RemoteViews can also add and remove views, which reset()
+ * can't undo, so a layout whose views no longer match the ones it was
+ * inflated with is dropped from the cache instead.
+ * 
+ * Each extraction is held to an ExtractionBudget. When a layout is nested too
+ * deeply, has too much text or takes too long, extraction stops and null is
+ * returned so that only the notification's own text is sent. These overruns
+ * are counted per package.
+ * 
+ * Not thread safe, it is only used on the NotificationPipeline's thread.
+ */
+public class NotificationExtractor {
+    private static final int                  CACHE_SIZE       = 16;
+    // how many packages' overruns are remembered
+    private static final int                  OVERRUN_PACKAGES = 64;
+
+    private final Context                     context;
+    private final LayoutInflater              inflater;
+    // package name and layout id to the inflated layout
+    private final Map<String, InflatedLayout> layouts          = new LruMap<String, InflatedLayout>(CACHE_SIZE);
+    private final StringBuilder               text             = new StringBuilder(256);
+    // package name to how many times it went over budget
+    private final Map<String, Integer>        overruns         = new LruMap<String, Integer>(OVERRUN_PACKAGES);
+    private int                               overrunTotal;
+
+    // the budget for the extraction in progress
+    private ExtractionBudget                  budget;
+    private long                              deadline;
+    private String                            overrunReason;
+
+    private static final class InflatedLayout {
+        final ViewGroup      root;
+        // every view under the root, in the order they were inflated
+        final View[]         views;
+        final TextView[]     textViews;
+        final CharSequence[] initialText;
+
+        InflatedLayout(ViewGroup root) {
+            this.root = root;
+            List<View> all = new ArrayList<View>();
+            findViews(root, all);
+            views = all.toArray(new View[all.size()]);
+            List<TextView> found = new ArrayList<TextView>();
+            for (View v : views) {
+                if (v instanceof TextView) {
+                    found.add((TextView) v);
+                }
+            }
+            textViews = found.toArray(new TextView[found.size()]);
+            initialText = new CharSequence[textViews.length];
+            for (int i = 0; i < textViews.length; i++) {
+                initialText[i] = textViews[i].getText();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < textViews.length; i++) {
+                textViews[i].setText(initialText[i]);
+            }
+        }
+
+        /**
+         * @return true if the views under the root are still exactly the ones
+         *         it was inflated with
+         */
+        boolean isUnchanged() {
+            return matchViews(root, 0) == views.length;
+        }
+
+        /**
+         * @return the index after the group's views, or -1 if they don't match
+         */
+        private int matchViews(ViewGroup vg, int index) {
+            for (int i = 0; i < vg.getChildCount(); ++i) {
+                View v = vg.getChildAt(i);
+                if (index >= views.length || views[index] != v) {
+                    return -1;
+                }
+                index++;
+                if (v instanceof ViewGroup) {
+                    index = matchViews((ViewGroup) v, index);
+                    if (index < 0) {
+                        return -1;
+                    }
+                }
+            }
+            return index;
+        }
+
+        private static void findViews(ViewGroup vg, List<View> found) {
+            for (int i = 0; i < vg.getChildCount(); ++i) {
+                View v = vg.getChildAt(i);
+                found.add(v);
+                if (v instanceof ViewGroup) {
+                    findViews((ViewGroup) v, found);
+                }
+            }
+        }
+    }
+
+    public NotificationExtractor(Context context) {
+        this.context = context;
+        this.inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+    }
+
+    /**
+     * @return the text found in the notification's views, without the
+     *         existing text, or null if the budget ran out
+     */
+    public String getExtras(String packageName, Notification notification, String existing_text,
+            ExtractionBudget budget) {
+        this.budget = budget;
+        this.deadline = System.nanoTime() + budget.maxMillis * 1000000L;
+        this.overrunReason = null;
+        String extras = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            extras = getExtrasBundle(notification, existing_text);
+        }
+        if (extras == null && overrunReason == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                extras = getExtraBigData(packageName, notification, existing_text);
+            } else {
+                extras = getExtraData(packageName, notification, existing_text);
+            }
+        }
+        if (overrunReason != null) {
+            Integer count = overruns.get(packageName);
+            count = Integer.valueOf(count == null ? 1 : count.intValue() + 1);
+            overruns.put(packageName, count);
+            overrunTotal++;
+            if (Constants.IS_LOGGABLE) {
+                Log.w(Constants.LOG_TAG, "Fetching extras for " + packageName + " went over the " + overrunReason
+                        + " limit (" + budget + "), " + count + " times so far. Sending the basic text");
+            }
+            return null;
+        }
+        return extras;
+    }
+
+    public int getOverrunCount() {
+        return overrunTotal;
+    }
+
+    /**
+     * @return the packages that went over budget, with how many times
+     */
+    public String getOverrunReport() {
+        return overruns.toString();
+    }
+
+    /**
+     * @return the text from the notification's extras, in the order the
+     *         standard layouts show it, or null if it has none
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public String getExtrasBundle(Notification notification, String existing_text) {
+        Bundle bundle = notification.extras;
+        if (bundle == null) {
+            return null;
+        }
+        CharSequence body = bundle.getCharSequence(Notification.EXTRA_BIG_TEXT);
+        if (body == null) {
+            body = bundle.getCharSequence(Notification.EXTRA_TEXT);
+        }
+        CharSequence[] lines = bundle.getCharSequenceArray(Notification.EXTRA_TEXT_LINES);
+        if (body == null && lines == null) {
+            return null;
+        }
+        if (Constants.IS_LOGGABLE) {
+            Log.i(Constants.LOG_TAG, "Using the notification's extras bundle");
+        }
+
+        text.setLength(0);
+        // the title is skipped unless there is nothing else, as it is when
+        // searching the views
+        if (existing_text.isEmpty()) {
+            CharSequence title = bundle.getCharSequence(Notification.EXTRA_TITLE_BIG);
+            if (title == null) {
+                title = bundle.getCharSequence(Notification.EXTRA_TITLE);
+            }
+            if (!appendText(title, existing_text)) {
+                return null;
+            }
+        }
+        if (!appendText(body, existing_text)) {
+            return null;
+        }
+        if (lines != null) {
+            for (CharSequence line : lines) {
+                if (!appendText(line, existing_text)) {
+                    return null;
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    public String getExtraData(String packageName, Notification notification, String existing_text) {
+        if (Constants.IS_LOGGABLE) {
+            Log.i(Constants.LOG_TAG, "I am running extra data");
+        }
+        RemoteViews views = notification.contentView;
+        if (views == null) {
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "ContentView was empty, returning a blank string");
+            }
+            return "";
+        }
+
+        try {
+            return dumpViews(packageName, views, existing_text);
+        } catch (android.content.res.Resources.NotFoundException e) {
+            return "";
+        } catch (RemoteViews.ActionException e) {
+            return "";
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public String getExtraBigData(String packageName, Notification notification, String existing_text) {
+        if (Constants.IS_LOGGABLE) {
+            Log.i(Constants.LOG_TAG, "I am running extra big data");
+        }
+        RemoteViews views = null;
+        try {
+            views = notification.bigContentView;
+        } catch (NoSuchFieldError e) {
+            return getExtraData(packageName, notification, existing_text);
+        }
+        if (views == null) {
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "bigContentView was empty, running normal");
+            }
+            return getExtraData(packageName, notification, existing_text);
+        }
+        try {
+            return dumpViews(packageName, views, existing_text);
+        } catch (android.content.res.Resources.NotFoundException e) {
+            return "";
+        }
+    }
+
+    private String dumpViews(String packageName, RemoteViews views, String existing_text) {
+        String key = packageName + "/" + views.getLayoutId();
+        InflatedLayout layout = layouts.get(key);
+        if (layout == null) {
+            layout = new InflatedLayout((ViewGroup) inflater.inflate(views.getLayoutId(), null));
+            layouts.put(key, layout);
+        } else {
+            layout.reset();
+        }
+        views.reapply(context.getApplicationContext(), layout.root);
+        if (!layout.isUnchanged()) {
+            // reusing it would keep the views this added, text and all
+            if (Constants.IS_LOGGABLE) {
+                Log.d(Constants.LOG_TAG, "Layout " + key + " changed its views, not caching it");
+            }
+            layouts.remove(key);
+        }
+        text.setLength(0);
+        if (System.nanoTime() > deadline) {
+            overrunReason = "time";
+            return null;
+        }
+        if (!dumpViewGroup(0, layout.root, existing_text)) {
+            return null;
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return false if the budget ran out, with overrunReason set
+     */
+    private boolean dumpViewGroup(int depth, ViewGroup vg, String existing_text) {
+        if (depth > budget.maxDepth) {
+            overrunReason = "depth";
+            return false;
+        }
+        if (Constants.IS_LOGGABLE) {
+            Log.d(Constants.LOG_TAG, "root view, depth:" + depth + "; view: " + vg);
+        }
+        for (int i = 0; i < vg.getChildCount(); ++i) {
+            if (System.nanoTime() > deadline) {
+                overrunReason = "time";
+                return false;
+            }
+            View v = vg.getChildAt(i);
+            if (Constants.IS_LOGGABLE) {
+                Log.d(Constants.LOG_TAG, "depth: " + depth + "; " + v.getClass().toString() + "; view: " + v);
+            }
+            if (v.getId() == android.R.id.title || v instanceof android.widget.Button
+                    || v.getClass().getName().contains("android.widget.DateTimeView")) {
+                if (Constants.IS_LOGGABLE) {
+                    Log.d(Constants.LOG_TAG, "I am going to skip this, but if I didn't, the text would be: "
+                            + ((TextView) v).getText());
+                }
+                if (existing_text.isEmpty() && v.getId() == android.R.id.title) {
+                    if (Constants.IS_LOGGABLE) {
+                        Log.d(Constants.LOG_TAG,
+                                "I was going to skip this, but the existing text was empty, and I need something.");
+                    }
+                } else {
+                    continue;
+                }
+            }
+
+            if (v instanceof TextView) {
+                if (!appendText(((TextView) v).getText(), existing_text)) {
+                    return false;
+                }
+            }
+            if (v instanceof ViewGroup) {
+                if (!dumpViewGroup(depth + 1, (ViewGroup) v, existing_text)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a line of text unless it is the existing text, a number or a
+     * placeholder.
+     * 
+     * @return false if this went over the length budget
+     */
+    private boolean appendText(CharSequence cs, String existing_text) {
+        if (cs == null) {
+            return true;
+        }
+        String s = cs.toString();
+        if (s.equals("...") || s.equals("�") || isInteger(s) || s.trim().equalsIgnoreCase(existing_text)) {
+            if (Constants.IS_LOGGABLE) {
+                Log.d(Constants.LOG_TAG, "Text is: " + s + " but I am going to skip this");
+            }
+            return true;
+        }
+        text.append(s).append('\n');
+        if (text.length() > budget.maxChars) {
+            overrunReason = "length";
+            return false;
+        }
+        if (Constants.IS_LOGGABLE) {
+            Log.i(Constants.LOG_TAG, s);
+        }
+        return true;
+    }
+
+    public boolean isInteger(String input) {
+        try {
+            Integer.parseInt(input);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
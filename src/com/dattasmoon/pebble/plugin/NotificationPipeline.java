@@ -0,0 +1,408 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.app.Notification;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.dattasmoon.pebble.plugin.Constants.Mode;
+import com.dattasmoon.pebble.plugin.OutboundMessage.Priority;
+import com.getpebble.android.kit.util.PebbleDictionary;
+
+/**
+ * Everything that happens to a notification between the accessibility
+ * callback and the MessageManager. The callback only captures a
+ * NotificationEvent and queues it; a dedicated thread then runs it through
+ * the stages:
+ * 
+ * <ol>
+ * <li>filter - mode, notification type, screen, package list and quiet hours,
+ * cheapest first</li>
+ * <li>extract - the notification text plus any extras from its views</li>
+ * <li>match - the ignore list</li>
+ * <li>format - title lookup, conversions, dropping repeats, rate limiting,
+ * merging bursts and building a PebbleDictionary that fits the watch</li>
+ * </ol>
+ * 
+ * Anything that costs an allocation or a call to another process (extras,
+ * title lookup) only happens once every cheaper check has passed.
+ * 
+ * A slow notification only holds up this thread, never the callback. The
+ * queue is bounded: when it is full the oldest waiting event is dropped.
+ */
+public class NotificationPipeline {
+    private static final int                       QUEUE_CAPACITY = 32;
+    // how often the stage timings are logged, in events
+    private static final int                       LOG_INTERVAL   = 50;
+
+    private final NotificationService              service;
+    private final NotificationExtractor            extractor;
+    private final BlockingQueue<NotificationEvent> queue          = new ArrayBlockingQueue<NotificationEvent>(
+                                                                          QUEUE_CAPACITY);
+    private final AtomicBoolean                    drainPosted    = new AtomicBoolean(false);
+    private final AtomicInteger                    dropped        = new AtomicInteger(0);
+    private HandlerThread                          thread;
+    private Handler                                handler;
+    private final Runnable                         drain;
+    // the cheap checks, cheapest first
+    private final Filter[]                         filters;
+
+    // only touched on the pipeline thread
+    private final StageTimer                       queueTimer     = new StageTimer("queue");
+    private final StageTimer                       filterTimer    = new StageTimer("filter");
+    private final StageTimer                       extractTimer   = new StageTimer("extract");
+    private final StageTimer                       matchTimer     = new StageTimer("match");
+    private final StageTimer                       formatTimer    = new StageTimer("format");
+    private final DuplicateFilter                  duplicates     = new DuplicateFilter();
+    private final RateLimiter                      rateLimiter    = new RateLimiter();
+    private BurstCoalescer                         coalescer;
+    private final StringBuilder                    textBuilder    = new StringBuilder(256);
+    private int                                    processed      = 0;
+
+    /**
+     * Running totals for how long one stage takes.
+     */
+    private static final class StageTimer {
+        final String name;
+        int          count;
+        long         totalNanos;
+        long         maxNanos;
+
+        StageTimer(String name) {
+            this.name = name;
+        }
+
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) {
+                return name + ": -";
+            }
+            return String.format(Locale.US, "%s: %d, avg %.2fms, max %.2fms", name, count, totalNanos / 1e6 / count,
+                    maxNanos / 1e6);
+        }
+    }
+
+    public NotificationPipeline(NotificationService service) {
+        this.service = service;
+        this.extractor = new NotificationExtractor(service);
+        this.filters = createFilters();
+        this.drain = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    public void start() {
+        thread = new HandlerThread("NotificationPipeline", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        coalescer = new BurstCoalescer(thread.getLooper(), service.getResources(), new BurstCoalescer.Sink() {
+            @Override
+            public void send(String packageName, String title, String text, Priority priority) {
+                sendToPebble(service.getConfig(), packageName, title, text, priority);
+            }
+        });
+    }
+
+    public void stop() {
+        if (thread != null) {
+            thread.quit();
+        }
+    }
+
+    /**
+     * Queues the event for processing. Safe to call from any thread.
+     */
+    public void submit(NotificationEvent event) {
+        while (!queue.offer(event)) {
+            if (queue.poll() != null) {
+                int total = dropped.incrementAndGet();
+                if (Constants.IS_LOGGABLE) {
+                    Log.w(Constants.LOG_TAG, "Pipeline queue is full, dropped the oldest event (" + total
+                            + " dropped so far)");
+                }
+            }
+        }
+        if (drainPosted.compareAndSet(false, true)) {
+            handler.post(drain);
+        }
+    }
+
+    public int getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void drain() {
+        // cleared first so that an event queued while draining posts again
+        drainPosted.set(false);
+        NotificationEvent event;
+        while ((event = queue.poll()) != null) {
+            process(event);
+        }
+    }
+
+    private void process(NotificationEvent event) {
+        // read the config once so the whole event sees the same settings
+        final NotificationConfig config = service.getConfig();
+        if (config == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        queueTimer.add(start - event.capturedNanos);
+
+        boolean passed = filter(config, event);
+        long filtered = System.nanoTime();
+        filterTimer.add(filtered - start);
+        if (!passed) {
+            logTimings();
+            return;
+        }
+
+        String notificationText = extract(config, event);
+        long extracted = System.nanoTime();
+        extractTimer.add(extracted - filtered);
+
+        passed = match(config, event, notificationText);
+        long matched = System.nanoTime();
+        matchTimer.add(matched - extracted);
+        if (passed) {
+            format(config, event, notificationText);
+            formatTimer.add(System.nanoTime() - matched);
+        }
+        logTimings();
+    }
+
+    private void logTimings() {
+        processed++;
+        if (Constants.IS_LOGGABLE && processed % LOG_INTERVAL == 0) {
+            Log.d(Constants.LOG_TAG, "Pipeline timings after " + processed + " events (" + dropped.get()
+                    + " dropped): " + queueTimer + "; " + filterTimer + "; " + extractTimer + "; " + matchTimer
+                    + "; " + formatTimer + "; " + duplicates.getSuppressedCount() + " duplicates suppressed; "
+                    + rateLimiter.getThrottledCount() + " throttled; " + coalescer.getMergedCount()
+                    + " merged into digests; extras over budget " + extractor.getOverrunCount() + " times: "
+                    + extractor.getOverrunReport());
+            MessageManager messages = service.getMessageManager();
+            Log.d(Constants.LOG_TAG, "Sending: " + messages.getTimeoutCount() + " ack timeouts, "
+                    + messages.getRetryCount() + " retries, " + messages.getDroppedCount() + " given up, "
+                    + messages.getOverflowCount() + " dropped from a full queue, " + messages.getLaunchCount()
+                    + " watchapp launches, " + messages.getState());
+        }
+    }
+
+    private boolean filter(NotificationConfig config, NotificationEvent event) {
+        if (Constants.IS_LOGGABLE) {
+            Log.i(Constants.LOG_TAG, "Event: " + event.toString());
+        }
+        for (Filter filter : filters) {
+            if (!filter.accept(config, event)) {
+                if (Constants.IS_LOGGABLE) {
+                    Log.i(Constants.LOG_TAG, "Rejected by the " + filter.name + " filter");
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A check that can reject an event before any text is extracted. Each one
+     * declares a rough relative cost and they are run cheapest first, so an
+     * event is turned away by the cheapest check that would reject it. They
+     * all have to pass, so the order never changes the outcome.
+     */
+    private static abstract class Filter {
+        // reads a few fields, no allocation
+        static final int FREE   = 0;
+        // a hash lookup
+        static final int LOOKUP = 1;
+        // usually a single comparison, but sometimes works out the time
+        static final int CLOCK  = 2;
+
+        final String     name;
+        final int        cost;
+
+        Filter(String name, int cost) {
+            this.name = name;
+            this.cost = cost;
+        }
+
+        abstract boolean accept(NotificationConfig config, NotificationEvent event);
+    }
+
+    private Filter[] createFilters() {
+        Filter[] list = new Filter[] {
+                new Filter("quiet hours", Filter.CLOCK) {
+                    @Override
+                    boolean accept(NotificationConfig config, NotificationEvent event) {
+                        return config.quietHours == null || !config.quietHours.isQuiet();
+                    }
+                },
+                new Filter("mode", Filter.FREE) {
+                    @Override
+                    boolean accept(NotificationConfig config, NotificationEvent event) {
+                        // if we are off, don't do anything.
+                        return config.mode != Mode.OFF;
+                    }
+                },
+                new Filter("notifications only", Filter.FREE) {
+                    @Override
+                    boolean accept(NotificationConfig config, NotificationEvent event) {
+                        return !config.notificationsOnly || event.notification != null;
+                    }
+                },
+                new Filter("no ongoing notifications", Filter.FREE) {
+                    @Override
+                    boolean accept(NotificationConfig config, NotificationEvent event) {
+                        return !config.noOngoingNotifs || event.notification == null
+                                || (event.notification.flags & Notification.FLAG_ONGOING_EVENT) != Notification.FLAG_ONGOING_EVENT;
+                    }
+                },
+                new Filter("screen on", Filter.FREE) {
+                    @Override
+                    boolean accept(NotificationConfig config, NotificationEvent event) {
+                        // Handle the do not disturb screen on settings
+                        return config.notifScreenOn || !service.isScreenOn();
+                    }
+                },
+                new Filter("package list", Filter.LOOKUP) {
+                    @Override
+                    boolean accept(NotificationConfig config, NotificationEvent event) {
+                        switch (config.mode) {
+                        case EXCLUDE:
+                            return !config.packages.contains(event.packageName.toLowerCase(Locale.US));
+                        case INCLUDE:
+                            return config.packages.contains(event.packageName.toLowerCase(Locale.US));
+                        default:
+                            return true;
+                        }
+                    }
+                } };
+        Arrays.sort(list, new Comparator<Filter>() {
+            @Override
+            public int compare(Filter lhs, Filter rhs) {
+                return lhs.cost - rhs.cost;
+            }
+        });
+        return list;
+    }
+
+    private String extract(NotificationConfig config, NotificationEvent event) {
+        if (config.notificationExtras) {
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "Fetching extras from notification");
+            }
+            if (event.notification != null) {
+                String extras = extractor.getExtras(event.packageName, event.notification, event.text,
+                        config.extrasBudget);
+                if (extras != null) {
+                    textBuilder.setLength(0);
+                    textBuilder.append(event.text).append('\n').append(extras);
+                    return textBuilder.toString();
+                }
+            }
+        }
+        return event.text;
+    }
+
+    private boolean match(NotificationConfig config, NotificationEvent event, String notificationText) {
+        // Check ignore lists
+        IgnoreRuleSet.Rule rejectingRule = config.ignores.findRejectingRule(event.packageName, notificationText);
+        if (rejectingRule != null) {
+            if (Constants.IS_LOGGABLE) {
+                if (rejectingRule.exclude) {
+                    Log.i(Constants.LOG_TAG, "Notification text of '" + notificationText + "' matches: '"
+                            + rejectingRule + "' and exclude is on. Returning");
+                } else {
+                    Log.i(Constants.LOG_TAG, "Notification text of '" + notificationText + "' does not match: '"
+                            + rejectingRule + "' and include is on. Returning");
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void format(NotificationConfig config, NotificationEvent event, String notificationText) {
+        // empty text is turned away before the title lookup, which may have
+        // to ask the package manager
+        notificationText = notificationText.trim();
+        if (notificationText.isEmpty()) {
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "Detected empty title or notification text, skipping");
+            }
+            return;
+        }
+
+        // get the title
+        String title = service.getTitleCache().getTitle(event.packageName);
+
+        title = title.trim();
+        if (title.isEmpty()) {
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "Detected empty title or notification text, skipping");
+            }
+            return;
+        }
+        // not sure if the title should be replaced as well or not. I'm
+        // guessing not
+        notificationText = config.converts.apply(notificationText);
+
+        long now = SystemClock.elapsedRealtime();
+        if (duplicates.isDuplicate(config.dedupeWindowMillis, event.packageName, title, notificationText, now)) {
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "Same notification was sent within the last "
+                        + config.dedupeWindowMillis + "ms, skipping");
+            }
+            return;
+        }
+        if (!rateLimiter.tryAcquire(event.packageName, config.getMinWaitMillis(event.packageName),
+                config.rateLimitBurst, now)) {
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, event.packageName + " is sending too often, skipping ("
+                        + rateLimiter.getThrottledCount(event.packageName) + " held back)");
+            }
+            return;
+        }
+        duplicates.markSent(config.dedupeWindowMillis, event.packageName, title, notificationText, now);
+
+        coalescer.offer(config.coalesceWindowMillis, config.coalesceMax, event.packageName, title, notificationText,
+                OutboundMessage.priorityOf(event.notification));
+    }
+
+    private void sendToPebble(NotificationConfig config, String packageName, String title, String notificationText,
+            Priority priority) {
+        // Create dictionary object to be sent to Pebble, cut down to fit
+        PebbleDictionary alertMsg = config.payloadBudget.createAlert(title, notificationText);
+
+        service.getMessageManager().offer(new OutboundMessage(alertMsg, packageName, priority));
+    }
+}
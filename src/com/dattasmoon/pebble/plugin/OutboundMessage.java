@@ -0,0 +1,55 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import android.app.Notification;
+import android.os.Build;
+
+import com.getpebble.android.kit.util.PebbleDictionary;
+
+/**
+ * An alert waiting in, or sent from, the MessageManager's queue.
+ */
+public final class OutboundMessage {
+    public static enum Priority {
+        LOW, NORMAL, HIGH
+    }
+
+    public final PebbleDictionary data;
+    public final String           packageName;
+    public final Priority         priority;
+    // set by the OutboundQueue, lower is older
+    long                          sequence;
+    // only touched on the message thread
+    int                           attempts;
+
+    public OutboundMessage(PebbleDictionary data, String packageName, Priority priority) {
+        this.data = data;
+        this.packageName = packageName;
+        this.priority = priority;
+    }
+
+    /**
+     * Maps Notification.priority onto the three classes. Toasts, and
+     * notifications from before Jelly Bean had priorities, are NORMAL.
+     */
+    public static Priority priorityOf(Notification notification) {
+        if (notification == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return Priority.NORMAL;
+        }
+        if (notification.priority >= Notification.PRIORITY_HIGH) {
+            return Priority.HIGH;
+        }
+        if (notification.priority <= Notification.PRIORITY_LOW) {
+            return Priority.LOW;
+        }
+        return Priority.NORMAL;
+    }
+}
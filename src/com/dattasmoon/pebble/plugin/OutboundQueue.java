@@ -0,0 +1,229 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import android.util.Log;
+
+import com.dattasmoon.pebble.plugin.OutboundMessage.Priority;
+
+/**
+ * The MessageManager's queue: one FIFO per priority, always taken from the
+ * highest non-empty one, so an urgent alert overtakes a backlog of low
+ * priority ones. The queue holds at most a fixed number of messages, and
+ * when a new one arrives at a full queue the OverflowPolicy decides what
+ * gives.
+ * 
+ * Messages being retried are kept apart from the rest, ahead of everything
+ * else of their priority. They don't count against the limit and are never
+ * chosen to make room, since they were already accepted once.
+ */
+public class OutboundQueue {
+    public static enum OverflowPolicy {
+        // drop the message that has been waiting longest
+        DROP_OLDEST,
+        // drop the oldest message of the lowest priority, which may be the
+        // new one
+        DROP_LOWEST,
+        // replace the queued message from the same package, if there is one,
+        // otherwise drop the oldest
+        COLLAPSE
+    }
+
+    private final ArrayDeque<OutboundMessage>[] queues;
+    // messages being retried, by priority
+    private final ArrayDeque<OutboundMessage>[] retries;
+    private int                                 capacity;
+    private OverflowPolicy                      policy;
+    // queued messages, not counting retries
+    private int                                 size;
+    private long                                nextSequence;
+    private int                                 dropped;
+
+    @SuppressWarnings("unchecked")
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        queues = new ArrayDeque[Priority.values().length];
+        retries = new ArrayDeque[queues.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<OutboundMessage>();
+            retries[i] = new ArrayDeque<OutboundMessage>();
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Changes the limits, dropping messages by the new policy if more are
+     * queued than the new capacity allows.
+     */
+    public synchronized void setLimits(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        int trimmed = 0;
+        while (size > this.capacity) {
+            OutboundMessage victim = chooseVictim(null);
+            queues[victim.priority.ordinal()].remove(victim);
+            size--;
+            dropped++;
+            trimmed++;
+        }
+        if (trimmed > 0 && Constants.IS_LOGGABLE) {
+            Log.w(Constants.LOG_TAG, "Outbound queue is over its new limit of " + this.capacity + ", dropped "
+                    + trimmed + " messages (" + policy + ", " + dropped + " dropped so far)");
+        }
+    }
+
+    /**
+     * Queues a new message, making room for it if the queue is full.
+     * 
+     * @return false if the new message itself was dropped
+     */
+    public synchronized boolean offer(OutboundMessage message) {
+        message.sequence = nextSequence++;
+        if (size >= capacity) {
+            OutboundMessage victim = chooseVictim(message);
+            dropped++;
+            if (Constants.IS_LOGGABLE) {
+                Log.w(Constants.LOG_TAG, "Outbound queue is full (" + size + "), dropping a " + victim.priority
+                        + " message from " + victim.packageName + " (" + policy + ", " + dropped
+                        + " dropped so far)");
+            }
+            if (victim == message) {
+                return false;
+            }
+            queues[victim.priority.ordinal()].remove(victim);
+            size--;
+        }
+        queues[message.priority.ordinal()].addLast(message);
+        size++;
+        return true;
+    }
+
+    /**
+     * Puts a message that is being retried back ahead of everything else of
+     * its priority. It is never dropped for space.
+     */
+    public synchronized void offerFirst(OutboundMessage message) {
+        retries[message.priority.ordinal()].addLast(message);
+    }
+
+    /**
+     * @return the next message to send, or null if there are none
+     */
+    public synchronized OutboundMessage poll() {
+        for (int i = queues.length - 1; i >= 0; i--) {
+            OutboundMessage message = retries[i].pollFirst();
+            if (message != null) {
+                return message;
+            }
+            message = queues[i].pollFirst();
+            if (message != null) {
+                size--;
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return how many messages are waiting, including retries
+     */
+    public synchronized int size() {
+        int waiting = size;
+        for (ArrayDeque<OutboundMessage> retry : retries) {
+            waiting += retry.size();
+        }
+        return waiting;
+    }
+
+    /**
+     * @return how many messages were dropped because the queue was full
+     */
+    public synchronized int getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @param incoming
+     *            the message being offered, or null when trimming the queue
+     *            to a new capacity
+     */
+    private OutboundMessage chooseVictim(OutboundMessage incoming) {
+        switch (policy) {
+        case DROP_LOWEST:
+            int highest = incoming == null ? queues.length - 1 : incoming.priority.ordinal();
+            for (int i = 0; i <= highest; i++) {
+                if (!queues[i].isEmpty()) {
+                    return queues[i].peekFirst();
+                }
+            }
+            // everything queued outranks it
+            return incoming;
+        case COLLAPSE:
+            if (incoming == null) {
+                return collapsible();
+            }
+            for (ArrayDeque<OutboundMessage> queue : queues) {
+                // newest first, in case of more than one from the package
+                Iterator<OutboundMessage> it = queue.descendingIterator();
+                while (it.hasNext()) {
+                    OutboundMessage queued = it.next();
+                    if (queued.packageName.equals(incoming.packageName)) {
+                        return queued;
+                    }
+                }
+            }
+            return oldest();
+        case DROP_OLDEST:
+        default:
+            return oldest();
+        }
+    }
+
+    /**
+     * @return the oldest message that has a newer one from the same package
+     *         queued, otherwise the oldest message
+     */
+    private OutboundMessage collapsible() {
+        OutboundMessage victim = null;
+        for (ArrayDeque<OutboundMessage> queue : queues) {
+            for (OutboundMessage queued : queue) {
+                if ((victim == null || queued.sequence < victim.sequence) && hasNewer(queued)) {
+                    victim = queued;
+                }
+            }
+        }
+        return victim == null ? oldest() : victim;
+    }
+
+    private boolean hasNewer(OutboundMessage message) {
+        for (ArrayDeque<OutboundMessage> queue : queues) {
+            for (OutboundMessage queued : queue) {
+                if (queued.sequence > message.sequence && queued.packageName.equals(message.packageName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private OutboundMessage oldest() {
+        OutboundMessage oldest = null;
+        for (ArrayDeque<OutboundMessage> queue : queues) {
+            OutboundMessage head = queue.peekFirst();
+            if (head != null && (oldest == null || head.sequence < oldest.sequence)) {
+                oldest = head;
+            }
+        }
+        return oldest;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import android.util.Log;
+
+import com.getpebble.android.kit.util.PebbleDictionary;
+
+/**
+ * Makes sure an alert fits in the watchapp's AppMessage inbox. A message that
+ * doesn't fit is NACKed, so the title and body are cut down, at a word
+ * boundary where there is one and never in the middle of a character, with
+ * "..." on the end.
+ * 
+ * An encoded dictionary is a one byte tuple count followed by each tuple: a
+ * four byte key, a one byte type and a two byte length, then the data.
+ * Strings are UTF-8 with a null terminator, and the type is a single uint8.
+ */
+public final class PayloadBudget {
+    public static final int     DEFAULT_INBOX_SIZE = 124;
+
+    private static final int    DICTIONARY_HEADER  = 1;
+    private static final int    TUPLE_HEADER       = 7;
+    // the type tuple, plus the headers and terminators of the two strings
+    private static final int    OVERHEAD           = DICTIONARY_HEADER + (TUPLE_HEADER + 1) + 2 * (TUPLE_HEADER + 1);
+    private static final String ELLIPSIS           = "...";
+    // how far back to look for a space before just cutting the word
+    private static final int    WORD_SEARCH        = 16;
+
+    public final int            inboxSize;
+
+    public PayloadBudget(int inboxSize) {
+        this.inboxSize = inboxSize;
+    }
+
+    /**
+     * @return the alert, with the title and body shortened to fit the inbox
+     */
+    public PebbleDictionary createAlert(String title, String body) {
+        int available = Math.max(0, inboxSize - OVERHEAD);
+        int titleBytes = utf8Length(title);
+        int bodyBytes = utf8Length(body);
+        if (titleBytes + bodyBytes > available) {
+            // the title may use up to a third of the space, more if the body
+            // doesn't need it
+            int titleLimit = Math.min(titleBytes, Math.max(available - bodyBytes, available / 3));
+            title = truncate(title, titleLimit);
+            titleBytes = utf8Length(title);
+            body = truncate(body, available - titleBytes);
+            bodyBytes = utf8Length(body);
+            if (Constants.IS_LOGGABLE) {
+                Log.i(Constants.LOG_TAG, "Shortened the alert to " + encodedSize(titleBytes, bodyBytes)
+                        + " bytes to fit the " + inboxSize + " byte inbox");
+            }
+        }
+
+        PebbleDictionary alertMsg = new PebbleDictionary();
+        alertMsg.addUint8(Constants.MESSAGE_KEY_TYPE, Constants.MESSAGE_TYPE_ALERT);
+        alertMsg.addString(Constants.MESSAGE_KEY_TITLE, title);
+        alertMsg.addString(Constants.MESSAGE_KEY_BODY, body);
+        return alertMsg;
+    }
+
+    /**
+     * @return the size of an encoded alert with strings of these UTF-8 lengths
+     */
+    public static int encodedSize(int titleBytes, int bodyBytes) {
+        return OVERHEAD + titleBytes + bodyBytes;
+    }
+
+    /**
+     * Counts unpaired surrogates as three bytes, which is at least what any
+     * encoder will write for them.
+     */
+    public static int utf8Length(CharSequence s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return s if it is within maxBytes, otherwise as much of it as fits
+     *         with "..." on the end
+     */
+    public static String truncate(String s, int maxBytes) {
+        if (utf8Length(s) <= maxBytes) {
+            return s;
+        }
+        int limit = maxBytes - ELLIPSIS.length();
+        if (limit <= 0) {
+            return cut(s, maxBytes);
+        }
+        String prefix = cut(s, limit);
+        int end = prefix.length();
+        // unless the cut is already between words, back up to the last space
+        // if the word isn't too long
+        if (!Character.isWhitespace(s.charAt(end))) {
+            for (int i = end; i > 0 && i >= end - WORD_SEARCH; i--) {
+                if (Character.isWhitespace(prefix.charAt(i - 1))) {
+                    end = i;
+                    break;
+                }
+            }
+        }
+        while (end > 0 && Character.isWhitespace(prefix.charAt(end - 1))) {
+            end--;
+        }
+        return prefix.substring(0, end) + ELLIPSIS;
+    }
+
+    /**
+     * @return the longest prefix of s, in whole code points, that is at most
+     *         maxBytes
+     */
+    private static String cut(String s, int maxBytes) {
+        int bytes = 0;
+        int i = 0;
+        while (i < s.length()) {
+            int cp = s.codePointAt(i);
+            int size;
+            if (cp < 0x80) {
+                size = 1;
+            } else if (cp < 0x800) {
+                size = 2;
+            } else if (cp < 0x10000) {
+                size = 3;
+            } else {
+                size = 4;
+            }
+            if (bytes + size > maxBytes) {
+                break;
+            }
+            bytes += size;
+            i += Character.charCount(cp);
+        }
+        return s.substring(0, i);
+    }
+}
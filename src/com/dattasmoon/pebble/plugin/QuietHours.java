@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.Calendar;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * The quiet time preferences: notifications are only sent from the "not
+ * before" time up to and including the "not after" time, a window that may
+ * wrap past midnight. Both are kept as minutes of the day.
+ *
+ * Whether it is quiet only changes at those two minutes, so the answer is
+ * cached along with the wall clock time of the next change. Until then a check
+ * is a single comparison against System.currentTimeMillis(). Call
+ * invalidate() when the clock or time zone changes.
+ */
+public final class QuietHours {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    // no notifications before this minute of the day
+    public final int         notBefore;
+    // no notifications after this minute of the day
+    public final int         notAfter;
+
+    private volatile State   state;
+
+    private static final class State {
+        final boolean quiet;
+        final long    validFrom;
+        final long    validUntil;
+
+        State(boolean quiet, long validFrom, long validUntil) {
+            this.quiet = quiet;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+        }
+    }
+
+    public QuietHours(int notBefore, int notAfter) {
+        this.notBefore = notBefore;
+        this.notAfter = notAfter;
+    }
+
+    /**
+     * @return the quiet hours, or null if they are turned off
+     */
+    public static QuietHours fromPreferences(SharedPreferences sharedPref) {
+        if (!sharedPref.getBoolean(Constants.PREFERENCE_QUIET_HOURS, false)) {
+            return null;
+        }
+        return new QuietHours(parseTime(sharedPref.getString(Constants.PREFERENCE_QUIET_HOURS_BEFORE, "00:00")),
+                parseTime(sharedPref.getString(Constants.PREFERENCE_QUIET_HOURS_AFTER, "23:59")));
+    }
+
+    private static int parseTime(String time) {
+        String[] pieces = time.split(":");
+        return Integer.parseInt(pieces[0]) * 60 + Integer.parseInt(pieces[1]);
+    }
+
+    public boolean isQuietAt(int minuteOfDay) {
+        if (notBefore > notAfter) {
+            return minuteOfDay > notAfter && minuteOfDay < notBefore;
+        }
+        return minuteOfDay < notBefore || minuteOfDay > notAfter;
+    }
+
+    public boolean isQuiet() {
+        long now = System.currentTimeMillis();
+        State current = state;
+        if (current != null && now >= current.validFrom && now < current.validUntil) {
+            return current.quiet;
+        }
+
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(now);
+        int minuteOfDay = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+        boolean quiet = isQuietAt(minuteOfDay);
+        long validUntil = Math.min(nextOccurrence(c, notBefore), nextOccurrence(c, (notAfter + 1) % MINUTES_PER_DAY));
+        state = new State(quiet, now, validUntil);
+        if (Constants.IS_LOGGABLE) {
+            Log.i(Constants.LOG_TAG, "Quiet hours: now " + minuteOfDay + " vs " + notBefore + " and " + notAfter
+                    + ", quiet is " + quiet + " until " + validUntil);
+        }
+        return quiet;
+    }
+
+    public void invalidate() {
+        state = null;
+    }
+
+    /**
+     * Uses the calendar so that a daylight saving change between now and the
+     * boundary is accounted for.
+     */
+    private static long nextOccurrence(Calendar now, int minuteOfDay) {
+        Calendar c = (Calendar) now.clone();
+        c.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+        c.set(Calendar.MINUTE, minuteOfDay % 60);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        if (c.getTimeInMillis() <= now.getTimeInMillis()) {
+            c.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return c.getTimeInMillis();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import java.util.Map;
+
+/**
+ * Per package token buckets, so that one chatty app can't flood the Pebble.
+ * Each package may send a burst of notifications, after which it gets one
+ * more every wait period. Only the most recently used packages keep a bucket;
+ * a package whose bucket was evicted has been idle long enough to start again
+ * with a full one.
+ * 
+ * Not thread safe, it is only used on the NotificationPipeline's thread.
+ */
+public class RateLimiter {
+    private static final int          CAPACITY  = 64;
+
+    private final Map<String, Bucket> buckets   = new LruMap<String, Bucket>(CAPACITY);
+    private int                       throttled = 0;
+
+    private static final class Bucket {
+        double tokens;
+        long   lastRefill;
+        int    throttled;
+
+        Bucket(int burst, long now) {
+            tokens = burst;
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Takes a token for the package if one is available.
+     * 
+     * @param waitMillis
+     *            how long it takes to earn a token back, 0 for no limit
+     * @param burst
+     *            how many tokens a bucket holds
+     * @return false if the package has to wait
+     */
+    public boolean tryAcquire(String packageName, long waitMillis, int burst, long now) {
+        if (waitMillis <= 0) {
+            return true;
+        }
+        Bucket bucket = buckets.get(packageName);
+        if (bucket == null) {
+            bucket = new Bucket(burst, now);
+            buckets.put(packageName, bucket);
+        } else {
+            bucket.tokens = Math.min(burst, bucket.tokens + (double) (now - bucket.lastRefill) / waitMillis);
+            bucket.lastRefill = now;
+        }
+        if (bucket.tokens >= 1) {
+            bucket.tokens -= 1;
+            return true;
+        }
+        bucket.throttled++;
+        throttled++;
+        return false;
+    }
+
+    /**
+     * @return how many of the package's notifications were held back since
+     *         its bucket was created
+     */
+    public int getThrottledCount(String packageName) {
+        Bucket bucket = buckets.get(packageName);
+        return bucket == null ? 0 : bucket.throttled;
+    }
+
+    public int getThrottledCount() {
+        return throttled;
+    }
+}
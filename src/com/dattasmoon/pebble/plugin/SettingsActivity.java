@@ -132,8 +132,8 @@ public class SettingsActivity extends PreferenceActivity {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             }
-            watchFile.setLastModified(System.currentTimeMillis());
         }
+        watchFile.setLastModified(System.currentTimeMillis());
         super.onPause();
     }
 
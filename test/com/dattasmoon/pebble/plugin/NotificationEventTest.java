@@ -0,0 +1,75 @@
+/*
+Copyright (c) 2013 Dattas Moonchaser
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.dattasmoon.pebble.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Plain JVM tests for NotificationEvent.joinText(), which only needs the JDK.
+ */
+public class NotificationEventTest {
+    private static final int EVENTS = 20000;
+
+    @Test
+    public void joinTextMatchesListToString() {
+        StringBuilder scratch = new StringBuilder();
+        List<List<CharSequence>> cases = Arrays.asList(Arrays.<CharSequence> asList(),
+                Arrays.<CharSequence> asList("Hello"), Arrays.<CharSequence> asList("  New mail ", "from Bob  "),
+                Arrays.<CharSequence> asList(" ", "\t"), Arrays.<CharSequence> asList("a", null, "b"),
+                Arrays.<CharSequence> asList(new StringBuilder("built"), "ü ñ 😀"));
+        for (List<CharSequence> parts : cases) {
+            String listed = parts.toString();
+            assertEquals(listed.substring(1, listed.length() - 1).trim(), NotificationEvent.joinText(parts, scratch));
+        }
+    }
+
+    /**
+     * The only thing joinText() should allocate is the string it returns.
+     */
+    @Test
+    public void joinTextOnlyAllocatesTheResult() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<CharSequence> parts = Arrays.<CharSequence> asList("  New message", "from Alice", "See you at eight  ");
+        StringBuilder scratch = new StringBuilder(256);
+        String expected = "New message, from Alice, See you at eight";
+        // let the JIT settle first
+        for (int i = 0; i < EVENTS; i++) {
+            NotificationEvent.joinText(parts, scratch);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        String text = null;
+        for (int i = 0; i < EVENTS; i++) {
+            text = NotificationEvent.joinText(parts, scratch);
+        }
+        long perEvent = (threads.getThreadAllocatedBytes(threadId) - before) / EVENTS;
+
+        assertEquals(expected, text);
+        // a String and its array, at two bytes a character, with room for
+        // headers
+        long resultBytes = 64 + 2 * expected.length();
+        assertTrue("joinText allocated " + perEvent + " bytes per event, expected at most " + resultBytes,
+                perEvent <= resultBytes);
+    }
+}